@@ -0,0 +1,56 @@
+package com.example.loanapp;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+// Settled loan moved out of the hot table by LoanArchiveService
+@Data
+@Entity
+@Table(name = "loan_application_archive", indexes = {
+        @Index(name = "idx_archive_tracking_id", columnList = "trackingId"),
+        @Index(name = "idx_archive_checkout_request_id", columnList = "checkoutRequestID"),
+        @Index(name = "idx_archive_mpesa_receipt_code", columnList = "mpesaReceiptCode")
+})
+public class ArchivedLoanApplication {
+
+    @Id
+    private Long id; // same id the loan had in the hot table
+
+    private String name;
+    private String phone;
+    private String idNumber;
+    private String loanType;
+    private int loanAmount;
+    private int verificationFee;
+    private String status;
+    private String trackingId;
+
+    @Column(columnDefinition = "TEXT")
+    private String mpesaMessage;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date mpesaMessageDate;
+
+    // Parsed from mpesaMessage by MpesaMessageParser
+    private String mpesaReceiptCode;
+    private BigDecimal mpesaAmount;
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date mpesaTransactionDate;
+    private String mpesaSenderPhone;
+    private String mpesaMatchStatus; // MATCHED, AMOUNT_MISMATCH, RECEIPT_MISMATCH, DUPLICATE, UNPARSED
+
+    // MpesaReceiptNumber from the STK callback
+    private String mpesaReceiptNumber;
+
+    private String checkoutRequestID;
+
+    @Column(name = "application_date")
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date applicationDate;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date archivedDate;
+}
@@ -0,0 +1,40 @@
+package com.example.loanapp;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.Optional;
+
+public interface ArchivedLoanApplicationRepository extends JpaRepository<ArchivedLoanApplication, Long> {
+    Optional<ArchivedLoanApplication> findByTrackingId(String trackingId);
+    Optional<ArchivedLoanApplication> findByCheckoutRequestID(String checkoutRequestID);
+    boolean existsByMpesaReceiptCode(String mpesaReceiptCode);
+
+    // Copies rows inside the database in one statement; keep the column list in step with both entities.
+    // Rows that stopped matching the archival criteria since they were selected are skipped.
+    @Modifying
+    @Query(nativeQuery = true, value = "INSERT INTO loan_application_archive "
+            + "(id, name, phone, id_number, loan_type, loan_amount, verification_fee, status, tracking_id, "
+            + "mpesa_message, mpesa_message_date, mpesa_receipt_code, mpesa_amount, mpesa_transaction_date, "
+            + "mpesa_sender_phone, mpesa_match_status, mpesa_receipt_number, checkout_requestid, application_date, "
+            + "archived_date) "
+            + "SELECT id, name, phone, id_number, loan_type, loan_amount, verification_fee, status, tracking_id, "
+            + "mpesa_message, mpesa_message_date, mpesa_receipt_code, mpesa_amount, mpesa_transaction_date, "
+            + "mpesa_sender_phone, mpesa_match_status, mpesa_receipt_number, checkout_requestid, application_date, "
+            + ":archivedDate "
+            + "FROM loan_application "
+            + "WHERE id IN (:ids) AND status IN (:statuses) AND application_date < :cutoff")
+    int copyFromHotTable(@Param("ids") Collection<Long> ids, @Param("statuses") Collection<String> statuses,
+                         @Param("cutoff") Date cutoff, @Param("archivedDate") Date archivedDate);
+
+    // Drops copies whose hot row was not deleted, so a loan never exists in both tables
+    @Modifying
+    @Query(nativeQuery = true, value = "DELETE FROM loan_application_archive "
+            + "WHERE id IN (:ids) "
+            + "AND EXISTS (SELECT 1 FROM loan_application l WHERE l.id = loan_application_archive.id)")
+    int deleteCopiesStillInHotTable(@Param("ids") Collection<Long> ids);
+}
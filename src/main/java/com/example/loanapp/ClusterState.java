@@ -0,0 +1,29 @@
+package com.example.loanapp;
+
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * State that must be visible to every replica behind the load balancer:
+ * payment statuses and rate-limit counters.
+ */
+public interface ClusterState {
+
+    Optional<PaymentStatus> getPaymentStatus(String checkoutRequestID);
+
+    void putPaymentStatus(String checkoutRequestID, PaymentStatus status);
+
+    void removePaymentStatus(String checkoutRequestID);
+
+    // Hits recorded for key in the current fixed window, including this one
+    long incrementRateCounter(String key, long windowMillis);
+
+    // Asks other nodes to drop any locally cached entry for key
+    void publishInvalidation(String key);
+
+    // True only if publishInvalidation actually reaches every other replica
+    boolean deliversInvalidations();
+
+    // Called with keys invalidated by other nodes, or null when everything may be stale
+    void onInvalidation(Consumer<String> listener);
+}
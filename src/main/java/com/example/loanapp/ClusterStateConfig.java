@@ -0,0 +1,30 @@
+package com.example.loanapp;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+
+@Configuration
+public class ClusterStateConfig {
+
+    // Payment statuses and rate counters older than this are dropped
+    @Value("${loanapp.cluster-state.retention-hours:24}")
+    private long retentionHours;
+
+    // loanapp.cluster-state=postgres when running more than one replica
+    @Bean
+    @ConditionalOnProperty(name = "loanapp.cluster-state", havingValue = "postgres")
+    public ClusterState postgresClusterState(DataSource dataSource) {
+        return new PostgresClusterState(dataSource, Duration.ofHours(retentionHours));
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "loanapp.cluster-state", havingValue = "memory", matchIfMissing = true)
+    public ClusterState inMemoryClusterState() {
+        return new InMemoryClusterState(Duration.ofHours(retentionHours));
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.loanapp;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Single-node default: state lives in this JVM only, and entries expire after the retention period
+public class InMemoryClusterState implements ClusterState {
+
+    private static final long MAX_ENTRIES = 100_000;
+
+    private final Map<String, PaymentStatus> paymentStatusMap;
+    private final Map<String, RateWindow> rateCounters;
+
+    private static class RateWindow {
+        final long windowStart;
+        final AtomicLong hits = new AtomicLong();
+
+        RateWindow(long windowStart) {
+            this.windowStart = windowStart;
+        }
+    }
+
+    public InMemoryClusterState(Duration retention) {
+        this.paymentStatusMap = expiringMap(retention);
+        this.rateCounters = expiringMap(retention);
+    }
+
+    private static <V> Map<String, V> expiringMap(Duration retention) {
+        return Caffeine.newBuilder()
+                .maximumSize(MAX_ENTRIES)
+                .expireAfterWrite(retention)
+                .<String, V>build()
+                .asMap();
+    }
+
+    @Override
+    public Optional<PaymentStatus> getPaymentStatus(String checkoutRequestID) {
+        return Optional.ofNullable(paymentStatusMap.get(checkoutRequestID));
+    }
+
+    @Override
+    public void putPaymentStatus(String checkoutRequestID, PaymentStatus status) {
+        paymentStatusMap.put(checkoutRequestID, status);
+    }
+
+    @Override
+    public void removePaymentStatus(String checkoutRequestID) {
+        paymentStatusMap.remove(checkoutRequestID);
+    }
+
+    @Override
+    public long incrementRateCounter(String key, long windowMillis) {
+        long windowStart = System.currentTimeMillis() / windowMillis * windowMillis;
+
+        // Replace the window in place once it has rolled over
+        RateWindow window = rateCounters.compute(key, (k, current) ->
+                current == null || current.windowStart != windowStart ? new RateWindow(windowStart) : current);
+        return window.hits.incrementAndGet();
+    }
+
+    // Other replicas, if any, never hear about it
+    @Override
+    public void publishInvalidation(String key) {
+    }
+
+    @Override
+    public boolean deliversInvalidations() {
+        return false;
+    }
+
+    @Override
+    public void onInvalidation(Consumer<String> listener) {
+    }
+}
@@ -3,16 +3,27 @@ package com.example.loanapp;
 import jakarta.persistence.*;
 import lombok.Data;
 
+import java.math.BigDecimal;
 import java.util.Date;
 
 @Data
 @Entity
+@Table(indexes = {
+        @Index(name = "idx_loan_tracking_id", columnList = "trackingId"),
+        @Index(name = "idx_loan_status_application_date", columnList = "status, application_date"),
+        @Index(name = "idx_loan_mpesa_receipt_code", columnList = "mpesaReceiptCode")
+})
 public class LoanApplication {
 
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
+    // Saving a stale copy (e.g. an outdated cache snapshot) fails instead of overwriting newer data
+    @Version
+    @Column(columnDefinition = "bigint default 0 not null")
+    private Long version;
+
     private String name;
     private String phone;
     private String idNumber;
@@ -28,6 +39,17 @@ public class LoanApplication {
     @Temporal(TemporalType.TIMESTAMP)
     private Date mpesaMessageDate;
 
+    // Parsed from mpesaMessage by MpesaMessageParser
+    private String mpesaReceiptCode;
+    private BigDecimal mpesaAmount;
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date mpesaTransactionDate;
+    private String mpesaSenderPhone;
+    private String mpesaMatchStatus; // MATCHED, AMOUNT_MISMATCH, RECEIPT_MISMATCH, DUPLICATE, UNPARSED
+
+    // MpesaReceiptNumber from the STK callback
+    private String mpesaReceiptNumber;
+
     @Column(unique = true)
     private String checkoutRequestID;
 
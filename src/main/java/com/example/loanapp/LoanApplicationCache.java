@@ -0,0 +1,186 @@
+package com.example.loanapp;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Near cache (Caffeine, W-TinyLFU eviction) for loans looked up by trackingId
+ * and checkoutRequestID. Entries are snapshots: callers always get their own
+ * copy, so mutating a loan before save never leaks into the cache. Every save
+ * must go through {@link #save} and every delete through {@link #evict}; other
+ * replicas are told to drop their copy through {@link ClusterState}.
+ * With loanapp.loan-cache.enabled=auto the cache is only used when the cluster
+ * state can deliver those invalidations; set it to true for a single replica.
+ * A snapshot that is stale anyway fails on save through LoanApplication.version.
+ * A load racing an invalidation is not cached, and an entry is never replaced
+ * by a snapshot with a lower version.
+ * Hit ratio is published as the cache.* metrics with cache=loanApplications.
+ */
+@Component
+public class LoanApplicationCache {
+
+    private static final String TRACKING = "t:";
+    private static final String CHECKOUT = "c:";
+
+    private final Cache<String, LoanApplication> cache;
+    private final ClusterState clusterState;
+    private final LoanApplicationRepository repository;
+    private final boolean enabled;
+    // Bumped before every invalidation, local or remote; see find
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public LoanApplicationCache(ClusterState clusterState, LoanApplicationRepository repository,
+                                MeterRegistry meterRegistry,
+                                @Value("${loanapp.loan-cache.enabled:auto}") String enabled,
+                                @Value("${loanapp.loan-cache.max-size:10000}") long maxSize,
+                                @Value("${loanapp.loan-cache.ttl-seconds:300}") long ttlSeconds) {
+        this.clusterState = clusterState;
+        this.repository = repository;
+        this.enabled = "auto".equals(enabled) ? clusterState.deliversInvalidations() : Boolean.parseBoolean(enabled);
+        System.out.println("Loan cache " + (this.enabled ? "enabled" : "disabled: other replicas cannot be invalidated"));
+
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "loanApplications");
+        clusterState.onInvalidation(key -> {
+            invalidations.incrementAndGet();
+            if (key == null) {
+                cache.invalidateAll();
+            } else {
+                cache.invalidate(key);
+            }
+        });
+    }
+
+    public Optional<LoanApplication> findByTrackingId(String trackingId,
+                                                      Function<String, Optional<LoanApplication>> loader) {
+        return find(TRACKING, trackingId, loader);
+    }
+
+    public Optional<LoanApplication> findByCheckoutRequestID(String checkoutRequestID,
+                                                             Function<String, Optional<LoanApplication>> loader) {
+        return find(CHECKOUT, checkoutRequestID, loader);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Saves and writes the result through; a stale snapshot is evicted so the retry reloads it
+    public LoanApplication save(LoanApplication loan) {
+        try {
+            return put(repository.save(loan));
+        } catch (OptimisticLockingFailureException e) {
+            evict(loan);
+            throw e;
+        }
+    }
+
+    private LoanApplication put(LoanApplication saved) {
+        if (!enabled) {
+            return saved;
+        }
+        LoanApplication snapshot = copy(saved);
+
+        // A new STK push replaces the CheckoutRequestID; drop the old mapping
+        if (saved.getTrackingId() != null) {
+            LoanApplication previous = cache.getIfPresent(TRACKING + saved.getTrackingId());
+            if (previous != null && previous.getCheckoutRequestID() != null
+                    && !previous.getCheckoutRequestID().equals(saved.getCheckoutRequestID())) {
+                invalidate(CHECKOUT + previous.getCheckoutRequestID());
+            }
+            invalidateOthers(TRACKING + saved.getTrackingId());
+            putIfNewer(TRACKING + saved.getTrackingId(), snapshot);
+        }
+        if (saved.getCheckoutRequestID() != null) {
+            invalidateOthers(CHECKOUT + saved.getCheckoutRequestID());
+            putIfNewer(CHECKOUT + saved.getCheckoutRequestID(), snapshot);
+        }
+        return saved;
+    }
+
+    // After repository.delete, or when a loan moves between hot and archive tables
+    public void evict(LoanApplication loan) {
+        evict(loan.getTrackingId(), loan.getCheckoutRequestID());
+    }
+
+    public void evict(String trackingId, String checkoutRequestID) {
+        if (!enabled) {
+            return;
+        }
+        if (trackingId != null) {
+            invalidate(TRACKING + trackingId);
+        }
+        if (checkoutRequestID != null) {
+            invalidate(CHECKOUT + checkoutRequestID);
+        }
+    }
+
+    private Optional<LoanApplication> find(String prefix, String id,
+                                           Function<String, Optional<LoanApplication>> loader) {
+        if (id == null) {
+            return Optional.empty();
+        }
+        if (!enabled) {
+            return loader.apply(id);
+        }
+        LoanApplication cached = cache.getIfPresent(prefix + id);
+        if (cached != null) {
+            return Optional.of(copy(cached));
+        }
+
+        // Misses are not cached, so a loan created later is found straight away.
+        // An invalidation that arrives while the loader runs may be for the row it just read,
+        // and it has already been applied to an empty slot; drop what we put instead.
+        long generation = invalidations.get();
+        Optional<LoanApplication> loaded = loader.apply(id);
+        if (loaded.isPresent()) {
+            putIfNewer(prefix + id, copy(loaded.get()));
+            if (invalidations.get() != generation) {
+                cache.invalidate(prefix + id);
+            }
+        }
+        return loaded;
+    }
+
+    // A slow load must not overwrite the snapshot a concurrent save just wrote through
+    private void putIfNewer(String key, LoanApplication snapshot) {
+        cache.asMap().merge(key, snapshot,
+                (existing, candidate) -> version(candidate) >= version(existing) ? candidate : existing);
+    }
+
+    private static long version(LoanApplication loan) {
+        return loan.getVersion() == null ? -1 : loan.getVersion();
+    }
+
+    private void invalidate(String key) {
+        invalidations.incrementAndGet();
+        cache.invalidate(key);
+        invalidateOthers(key);
+    }
+
+    private void invalidateOthers(String key) {
+        clusterState.publishInvalidation(key);
+    }
+
+    private static LoanApplication copy(LoanApplication loan) {
+        LoanApplication copy = new LoanApplication();
+        BeanUtils.copyProperties(loan, copy);
+        return copy;
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.loanapp;
 
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.*;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -9,9 +10,9 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.io.Serializable;
+import java.math.BigDecimal;
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 
 @RestController
 @RequestMapping("/api/loans")
@@ -46,23 +47,20 @@ public class LoanApplicationController {
     private final String passkey = EnvConfig.dotenv.get("MPESA_PASSKEY");
     private final String callbackUrl = EnvConfig.dotenv.get("MPESA_CALLBACK_URL");
 
-    // Map to store payment statuses
-    private static final Map<String, PaymentStatus> paymentStatusMap = new ConcurrentHashMap<>();
+    // Payment statuses and processed callbacks, shared across replicas
+    @Autowired
+    private ClusterState clusterState;
     @Autowired
     private LoanApplicationRepository loanApplicationRepository;
-
-    // Inner class to track payment details
-    private static class PaymentStatus {
-        String status; // pending, success, cancelled, failed
-        long timestamp;
-        String resultDesc;
-
-        PaymentStatus(String status, String resultDesc) {
-            this.status = status;
-            this.resultDesc = resultDesc;
-            this.timestamp = System.currentTimeMillis();
-        }
-    }
+    // Falls through to the archive for settled loans moved out of the hot table
+    @Autowired
+    private LoanArchiveService loanArchive;
+    @Autowired
+    private ArchivedLoanApplicationRepository archiveRepository;
+    // Every save goes through loanCache.save (or evicts, for the callback's direct update)
+    // so cached lookups never go stale
+    @Autowired
+    private LoanApplicationCache loanCache;
 
     @PostMapping("/apply")
     public LoanApplication applyLoan(@RequestBody LoanApplication application) {
@@ -76,13 +74,13 @@ public class LoanApplicationController {
                 + "L" + (1000000 + random.nextInt(9000000));
         application.setTrackingId(trackingId);
 
-        return repository.save(application);
+        return loanCache.save(application);
     }
     @PostMapping("/stk-push")
     public ResponseEntity<Map<String, Object>> initiateStkPush(@RequestBody StkPushRequest request) {
         try {
             // 1️⃣ Find loan by trackingId
-            Optional<LoanApplication> loanOptional = repository.findByTrackingId(request.getTrackingId());
+            Optional<LoanApplication> loanOptional = loanCache.findByTrackingId(request.getTrackingId(), loanArchive::findByTrackingId);
             if (loanOptional.isEmpty()) {
                 System.err.println("Loan not found for trackingId: " + request.getTrackingId());
                 return ResponseEntity.status(404).body(Map.of(
@@ -180,11 +178,21 @@ public class LoanApplicationController {
                 loan.setStatus("PENDING");
                 loan.setCheckoutRequestID(checkoutRequestID);
 
-
-                repository.save(loan);
+                try {
+                    loanCache.save(loan);
+                } catch (OptimisticLockingFailureException e) {
+                    // The loan changed while we waited on Safaricom (the cached copy may have been
+                    // stale, too). The push is already out, so keep its CheckoutRequestID on a fresh row.
+                    LoanApplication fresh = loanArchive.findByTrackingId(loan.getTrackingId()).orElseThrow(() -> e);
+                    fresh.setLoanAmount(request.getLoanAmount());
+                    fresh.setVerificationFee(request.getVerificationFee());
+                    fresh.setStatus("PENDING");
+                    fresh.setCheckoutRequestID(checkoutRequestID);
+                    loanCache.save(fresh);
+                }
 
                 // Track payment status
-                paymentStatusMap.put(checkoutRequestID, new PaymentStatus("pending", "STK Push sent"));
+                clusterState.putPaymentStatus(checkoutRequestID, new PaymentStatus("pending", "STK Push sent"));
 
                 System.out.println("STK Push successfully initiated for loan " + loan.getTrackingId() +
                         ", CheckoutRequestID: " + checkoutRequestID);
@@ -214,7 +222,7 @@ public class LoanApplicationController {
 
     @GetMapping("/all")
     public List<LoanApplication> getAllLoans() {
-        return repository.findAll();
+        return loanArchive.findAll();
     }
 
     private String sendStkPush(String phone, int amount) {
@@ -282,11 +290,11 @@ public class LoanApplicationController {
                 if (loanOptional.isPresent()) {
                     LoanApplication loan = loanOptional.get();
                     loan.setCheckoutRequestID(checkoutRequestID);
-                    repository.save(loan);
+                    loanCache.save(loan);
                 }
 
 
-                paymentStatusMap.put(checkoutRequestID, new PaymentStatus("pending", "STK Push sent"));
+                clusterState.putPaymentStatus(checkoutRequestID, new PaymentStatus("pending", "STK Push sent"));
 
 
 
@@ -362,26 +370,35 @@ public class LoanApplicationController {
 
             if (loanOptional.isPresent()) {
                 LoanApplication loan = loanOptional.get();
+                String loanStatus;
+                String receiptNumber = null;
+                PaymentStatus paymentStatus;
 
                 switch (resultCode) {
                     case 0 -> {
-                        loan.setStatus("PAID");
-                        paymentStatusMap.put(checkoutRequestID, new PaymentStatus("success", resultDesc));
-                        System.out.println("Payment successful for loan " + loan.getTrackingId());
+                        loanStatus = "PAID";
+                        receiptNumber = extractReceiptNumber(stkCallback);
+                        paymentStatus = new PaymentStatus("success", resultDesc);
                     }
                     case 1032 -> {
-                        loan.setStatus("CANCELLED");
-                        paymentStatusMap.put(checkoutRequestID, new PaymentStatus("cancelled", resultDesc));
-                        System.out.println("Payment cancelled for loan " + loan.getTrackingId());
+                        loanStatus = "CANCELLED";
+                        paymentStatus = new PaymentStatus("cancelled", resultDesc);
                     }
                     default -> {
-                        loan.setStatus("FAILED");
-                        paymentStatusMap.put(checkoutRequestID, new PaymentStatus("failed", resultDesc));
-                        System.out.println("Payment failed for loan " + loan.getTrackingId());
+                        loanStatus = "FAILED";
+                        paymentStatus = new PaymentStatus("failed", resultDesc);
                     }
                 }
 
-                repository.save(loan);
+                // Safaricom may retry, and the retry can land on another node. The conditional
+                // update is the claim: it commits together with the new status or not at all.
+                if (repository.settlePayment(checkoutRequestID, loanStatus, receiptNumber) == 0) {
+                    System.out.println("Duplicate callback ignored for CheckoutRequestID: " + checkoutRequestID);
+                    return ResponseEntity.ok(Map.of("message", "Callback already processed"));
+                }
+                loanCache.evict(loan);
+                clusterState.putPaymentStatus(checkoutRequestID, paymentStatus);
+                System.out.println("Payment " + paymentStatus.status + " for loan " + loan.getTrackingId());
             } else {
                 System.err.println("Loan not found for CheckoutRequestID: " + checkoutRequestID);
             }
@@ -395,10 +412,35 @@ public class LoanApplicationController {
         }
     }
 
+    // CallbackMetadata.Item is a list of {Name, Value} pairs; only present on success
+    private String extractReceiptNumber(Map<String, Object> stkCallback) {
+        if (!(stkCallback.get("CallbackMetadata") instanceof Map<?, ?> metadata)
+                || !(metadata.get("Item") instanceof List<?> items)) {
+            return null;
+        }
+        for (Object item : items) {
+            if (item instanceof Map<?, ?> entry && "MpesaReceiptNumber".equals(entry.get("Name"))
+                    && entry.get("Value") != null) {
+                return entry.get("Value").toString();
+            }
+        }
+        return null;
+    }
+
     @GetMapping("/mpesa/status/{checkoutRequestID}")
     public ResponseEntity<?> getPaymentStatus(@PathVariable String checkoutRequestID) {
+        // A settled outcome can be answered without loading the loan. "pending" may be a
+        // node-local entry the callback on another replica never updated, so read the loan for it.
+        Optional<PaymentStatus> tracked = clusterState.getPaymentStatus(checkoutRequestID);
+        if (tracked.isPresent() && tracked.get().isTerminal()) {
+            return ResponseEntity.ok(Map.of(
+                    "status", tracked.get().toLoanStatus(),
+                    "message", "Status fetched successfully"
+            ));
+        }
+
         Optional<LoanApplication> loanOptional =
-                loanApplicationRepository.findByCheckoutRequestID(checkoutRequestID);
+                loanCache.findByCheckoutRequestID(checkoutRequestID, loanArchive::findByCheckoutRequestID);
 
         if (loanOptional.isEmpty()) {
             return ResponseEntity.ok(Map.of(
@@ -427,12 +469,18 @@ public class LoanApplicationController {
         if (loanOptional.isPresent()) {
             LoanApplication loan = loanOptional.get();
             repository.delete(loan);  // Delete from database
+            loanCache.evict(loan);
 
-            // Remove from paymentStatusMap if exists
+            // Remove tracked payment status if exists
             if (loan.getCheckoutRequestID() != null) {
-                paymentStatusMap.remove(loan.getCheckoutRequestID());
+                clusterState.removePaymentStatus(loan.getCheckoutRequestID());
             }
 
+            return ResponseEntity.ok(Map.of(
+                    "message", "Loan deleted successfully",
+                    "trackingId", trackingId
+            ));
+        } else if (loanArchive.deleteArchived(trackingId)) {
             return ResponseEntity.ok(Map.of(
                     "message", "Loan deleted successfully",
                     "trackingId", trackingId
@@ -455,7 +503,7 @@ public class LoanApplicationController {
                 return ResponseEntity.status(400).body(Map.of("error", "Missing trackingId or mpesaMessage"));
             }
 
-            Optional<LoanApplication> loanOptional = repository.findByTrackingId(trackingId);
+            Optional<LoanApplication> loanOptional = loanCache.findByTrackingId(trackingId, loanArchive::findByTrackingId);
 
             if (loanOptional.isEmpty()) {
                 return ResponseEntity.status(404).body(Map.of("error", "Loan not found"));
@@ -463,13 +511,20 @@ public class LoanApplicationController {
 
             LoanApplication loan = loanOptional.get();
             loan.setMpesaMessage(mpesaMessage);
-            loan.setMpesaMessage(mpesaMessage);
             loan.setMpesaMessageDate(new Date());// optional: track that message is received
-            repository.save(loan);
+
+            ParsedMpesaMessage parsed = MpesaMessageParser.parse(mpesaMessage);
+            loan.setMpesaReceiptCode(parsed.getReceiptCode());
+            loan.setMpesaAmount(parsed.getAmount());
+            loan.setMpesaTransactionDate(parsed.getTransactionDate());
+            loan.setMpesaSenderPhone(parsed.getSenderPhone());
+            loan.setMpesaMatchStatus(matchMpesaMessage(loan));
+            loanCache.save(loan);
 
             return ResponseEntity.ok(Map.of(
                     "message", "M-Pesa message saved successfully",
-                    "trackingId", trackingId
+                    "trackingId", trackingId,
+                    "matchStatus", loan.getMpesaMatchStatus()
             ));
         } catch (Exception e) {
             e.printStackTrace();
@@ -477,9 +532,29 @@ public class LoanApplicationController {
         }
     }
 
+    // Checks the parsed message against what this loan expects; receipt lookups use the indexed column
+    private String matchMpesaMessage(LoanApplication loan) {
+        String receiptCode = loan.getMpesaReceiptCode();
+        if (receiptCode == null) {
+            return "UNPARSED";
+        }
+        if (repository.existsByMpesaReceiptCodeAndIdNot(receiptCode, loan.getId())
+                || archiveRepository.existsByMpesaReceiptCode(receiptCode)) {
+            return "DUPLICATE";
+        }
+        if (loan.getMpesaReceiptNumber() != null && !loan.getMpesaReceiptNumber().equalsIgnoreCase(receiptCode)) {
+            return "RECEIPT_MISMATCH";
+        }
+        if (loan.getMpesaAmount() == null
+                || loan.getMpesaAmount().compareTo(BigDecimal.valueOf(loan.getVerificationFee())) != 0) {
+            return "AMOUNT_MISMATCH";
+        }
+        return "MATCHED";
+    }
+
     @GetMapping("/mpesa-messages")
     public List<Map<String, Object>> getAllMpesaMessages() {
-        return repository.findAll().stream()
+        return loanArchive.findAll().stream()
                 .filter(l -> l.getMpesaMessage() != null)
                 .map(l -> {
                     Map<String, Object> map = new HashMap<>();
@@ -489,6 +564,12 @@ public class LoanApplicationController {
                     map.put("mpesaMessage", l.getMpesaMessage());
                     map.put("date", l.getMpesaMessageDate());
                     map.put("status", l.getStatus());
+                    map.put("receiptCode", l.getMpesaReceiptCode());
+                    map.put("amount", l.getMpesaAmount());
+                    map.put("transactionDate", l.getMpesaTransactionDate());
+                    map.put("senderPhone", l.getMpesaSenderPhone());
+                    map.put("callbackReceipt", l.getMpesaReceiptNumber());
+                    map.put("matchStatus", l.getMpesaMatchStatus());
                     return map;
                 })
                 .toList();
@@ -499,7 +580,7 @@ public class LoanApplicationController {
     public ResponseEntity<Map<String, String>> updateLoanOffer(@RequestBody Map<String, Object> payload) {
         String trackingId = (String) payload.get("trackingId");
 
-        Optional<LoanApplication> optionalLoan = repository.findByTrackingId(trackingId);
+        Optional<LoanApplication> optionalLoan = loanCache.findByTrackingId(trackingId, loanArchive::findByTrackingId);
         if (optionalLoan.isEmpty()) {
             return ResponseEntity.status(404).body(Map.of("error", "Loan not found"));
         }
@@ -515,7 +596,7 @@ public class LoanApplicationController {
             loan.setVerificationFee(((Number) payload.get("verificationFee")).intValue());
         }
 
-        repository.save(loan);
+        loanCache.save(loan);
 
         return ResponseEntity.ok(Map.of("message", "Loan offer saved"));
     }
@@ -1,10 +1,52 @@
 package com.example.loanapp;
 
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
 import java.util.Optional;
 
 public interface LoanApplicationRepository extends JpaRepository<LoanApplication, Long> {
     Optional<LoanApplication> findByTrackingId(String trackingId);
     Optional<LoanApplication> findByCheckoutRequestID(String checkoutRequestID);
+    boolean existsByMpesaReceiptCodeAndIdNot(String mpesaReceiptCode, Long id);
+
+    // Settles a pending STK push. Only one caller can move the row off PENDING, so 0 means
+    // another node (or an earlier delivery of the same callback) already handled it.
+    @Modifying
+    @Transactional
+    @Query("update LoanApplication l set l.status = :status, l.mpesaReceiptNumber = :receiptNumber, "
+            + "l.version = l.version + 1 "
+            + "where l.checkoutRequestID = :checkoutRequestID and l.status = 'PENDING'")
+    int settlePayment(@Param("checkoutRequestID") String checkoutRequestID,
+                      @Param("status") String status,
+                      @Param("receiptNumber") String receiptNumber);
+
+    // Keys of one archival batch; only these columns are selected, not the mpesaMessage TEXT
+    interface ArchiveCandidate {
+        Long getId();
+        String getTrackingId();
+        String getCheckoutRequestID();
+    }
+
+    // A List return type skips the count query a Page would run. The rows stay locked until the
+    // archival transaction commits, so a concurrent update waits instead of being lost.
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    List<ArchiveCandidate> findByStatusInAndApplicationDateBefore(Collection<String> statuses, Date cutoff, Pageable pageable);
+
+    // Deletes only rows that were copied to the archive and still match the archival criteria
+    @Modifying
+    @Query(nativeQuery = true, value = "DELETE FROM loan_application "
+            + "WHERE id IN (:ids) AND status IN (:statuses) AND application_date < :cutoff "
+            + "AND EXISTS (SELECT 1 FROM loan_application_archive a WHERE a.id = loan_application.id)")
+    int deleteArchived(@Param("ids") Collection<Long> ids, @Param("statuses") Collection<String> statuses,
+                       @Param("cutoff") Date cutoff);
 }
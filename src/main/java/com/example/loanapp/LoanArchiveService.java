@@ -0,0 +1,159 @@
+package com.example.loanapp;
+
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves settled loans (PAID, FAILED, CANCELLED) out of the hot table into
+ * loan_application_archive, and lets lookups fall through to the archive.
+ */
+@Service
+public class LoanArchiveService {
+
+    static final List<String> SETTLED_STATUSES = List.of("PAID", "FAILED", "CANCELLED");
+
+    @Autowired
+    private LoanApplicationRepository repository;
+    @Autowired
+    private ArchivedLoanApplicationRepository archiveRepository;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private ClusterState clusterState;
+    @Autowired
+    private LoanApplicationCache loanCache;
+
+    @Value("${loanapp.archive.after-days:90}")
+    private int afterDays;
+    @Value("${loanapp.archive.batch-size:500}")
+    private int batchSize;
+    @Value("${loanapp.archive.pause-ms:200}")
+    private long pauseMs;
+
+    @Scheduled(cron = "${loanapp.archive.cron:0 0 3 * * *}")
+    public void scheduledArchive() {
+        // Only the first replica to fire in this window does the work
+        if (clusterState.incrementRateCounter("loan-archival", TimeUnit.MINUTES.toMillis(30)) > 1) {
+            return;
+        }
+        archiveSettledLoans();
+    }
+
+    // Returns the number of loans archived
+    public int archiveSettledLoans() {
+        Date cutoff = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(afterDays));
+        int total = 0;
+
+        while (true) {
+            List<LoanApplicationRepository.ArchiveCandidate> moved =
+                    transactionTemplate.execute(tx -> archiveBatch(cutoff));
+            if (moved == null || moved.isEmpty()) {
+                break;
+            }
+            total += moved.size();
+
+            // After commit, so a concurrent lookup cannot re-cache the hot row
+            moved.forEach(loan -> loanCache.evict(loan.getTrackingId(), loan.getCheckoutRequestID()));
+
+            // Throttle so the API keeps its share of connections and IO
+            try {
+                Thread.sleep(pauseMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        System.out.println("Archived " + total + " settled loans older than " + afterDays + " days");
+        return total;
+    }
+
+    // INSERT ... SELECT and DELETE by id: the rows never travel through the JVM
+    private List<LoanApplicationRepository.ArchiveCandidate> archiveBatch(Date cutoff) {
+        List<LoanApplicationRepository.ArchiveCandidate> batch = repository.findByStatusInAndApplicationDateBefore(
+                SETTLED_STATUSES, cutoff, PageRequest.of(0, batchSize, Sort.by("id")));
+        if (batch.isEmpty()) {
+            return batch;
+        }
+
+        List<Long> ids = new ArrayList<>(batch.size());
+        batch.forEach(loan -> ids.add(loan.getId()));
+
+        // The criteria are re-checked in both statements; only rows that were copied are deleted
+        archiveRepository.copyFromHotTable(ids, SETTLED_STATUSES, cutoff, new Date());
+        int deleted = repository.deleteArchived(ids, SETTLED_STATUSES, cutoff);
+        if (deleted < ids.size()) {
+            archiveRepository.deleteCopiesStillInHotTable(ids);
+            return batch.stream().filter(loan -> !repository.existsById(loan.getId())).toList();
+        }
+        return batch;
+    }
+
+    // For callers that go on to modify the loan: an archived loan is moved back to the hot table
+    public Optional<LoanApplication> findByTrackingId(String trackingId) {
+        Optional<LoanApplication> hot = repository.findByTrackingId(trackingId);
+        if (hot.isPresent()) {
+            return hot;
+        }
+        return archiveRepository.findByTrackingId(trackingId).map(this::restore);
+    }
+
+    // Read-only lookup: an archived loan is returned as a detached copy
+    public Optional<LoanApplication> findByCheckoutRequestID(String checkoutRequestID) {
+        Optional<LoanApplication> hot = repository.findByCheckoutRequestID(checkoutRequestID);
+        if (hot.isPresent()) {
+            return hot;
+        }
+        return archiveRepository.findByCheckoutRequestID(checkoutRequestID).map(this::toLoanApplication);
+    }
+
+    public List<LoanApplication> findAll() {
+        List<LoanApplication> all = new ArrayList<>(repository.findAll());
+        archiveRepository.findAll().forEach(a -> all.add(toLoanApplication(a)));
+        return all;
+    }
+
+    // Returns false if the loan was in neither table
+    public boolean deleteArchived(String trackingId) {
+        Optional<ArchivedLoanApplication> archived = archiveRepository.findByTrackingId(trackingId);
+        archived.ifPresent(a -> {
+            archiveRepository.delete(a);
+            loanCache.evict(toLoanApplication(a));
+            // Otherwise a status poll would still report the deleted loan's payment
+            if (a.getCheckoutRequestID() != null) {
+                clusterState.removePaymentStatus(a.getCheckoutRequestID());
+            }
+        });
+        return archived.isPresent();
+    }
+
+    private LoanApplication restore(ArchivedLoanApplication archived) {
+        LoanApplication restored = transactionTemplate.execute(tx -> {
+            LoanApplication loan = toLoanApplication(archived);
+            loan.setId(null); // the hot table assigns a fresh identity
+            archiveRepository.delete(archived);
+            return repository.save(loan);
+        });
+        // Cached archive copies carry the old id
+        loanCache.evict(restored);
+        return restored;
+    }
+
+    private LoanApplication toLoanApplication(ArchivedLoanApplication archived) {
+        LoanApplication loan = new LoanApplication();
+        BeanUtils.copyProperties(archived, loan);
+        return loan;
+    }
+}
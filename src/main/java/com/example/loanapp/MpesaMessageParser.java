@@ -0,0 +1,78 @@
+package com.example.loanapp;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Extracts receipt code, amount, date and sender phone from M-Pesa confirmation SMS text, e.g.
+ * "QGH7XK2L9P Confirmed. Ksh150.00 sent to KOPESHA for account Loan on 12/10/24 at 3:45 PM. ..."
+ */
+public final class MpesaMessageParser {
+
+    // Compiled once; Pattern and DateTimeFormatter are thread-safe
+    private static final Pattern RECEIPT = Pattern.compile("\\b([A-Z0-9]{10})\\s+Confirmed", Pattern.CASE_INSENSITIVE);
+    private static final Pattern AMOUNT = Pattern.compile("Ksh\\s?(\\d[\\d,]*(?:\\.\\d{1,2})?)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern DATE = Pattern.compile(
+            "\\bon\\s+(\\d{1,2}/\\d{1,2}/\\d{2,4})\\s+at\\s+(\\d{1,2}:\\d{2}\\s*[AP]M)", Pattern.CASE_INSENSITIVE);
+    // Only "received ... from NAME 07..." names the sender; "sent to NAME 07..." is the recipient
+    private static final Pattern SENDER_PHONE = Pattern.compile(
+            "\\bfrom\\s+[^\\d\\n]{0,60}?(?<!\\d)(?:\\+?254|0)([17]\\d{8})(?!\\d)", Pattern.CASE_INSENSITIVE);
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("d/M/yy h:mm a", Locale.ENGLISH);
+    private static final DateTimeFormatter LONG_YEAR_DATE_FORMAT = DateTimeFormatter.ofPattern("d/M/yyyy h:mm a", Locale.ENGLISH);
+    private static final ZoneId NAIROBI = ZoneId.of("Africa/Nairobi");
+
+    private MpesaMessageParser() {
+    }
+
+    public static ParsedMpesaMessage parse(String message) {
+        ParsedMpesaMessage parsed = new ParsedMpesaMessage();
+        if (message == null) {
+            return parsed;
+        }
+
+        Matcher receipt = RECEIPT.matcher(message);
+        if (receipt.find()) {
+            parsed.setReceiptCode(receipt.group(1).toUpperCase(Locale.ROOT));
+        }
+
+        // First amount is the transaction; later ones are balance and cost
+        Matcher amount = AMOUNT.matcher(message);
+        if (amount.find()) {
+            parsed.setAmount(new BigDecimal(amount.group(1).replace(",", "")));
+        }
+
+        Matcher date = DATE.matcher(message);
+        if (date.find()) {
+            parsed.setTransactionDate(parseDate(date.group(1), date.group(2)));
+        }
+
+        Matcher phone = SENDER_PHONE.matcher(message);
+        if (phone.find()) {
+            parsed.setSenderPhone("254" + phone.group(1));
+        }
+
+        return parsed;
+    }
+
+    private static Date parseDate(String day, String time) {
+        // "3:45PM" and "3:45 pm" both become "3:45 PM"
+        String clock = time.replace(" ", "").toUpperCase(Locale.ROOT);
+        String text = day + " " + clock.substring(0, clock.length() - 2) + " " + clock.substring(clock.length() - 2);
+
+        boolean longYear = day.length() - day.lastIndexOf('/') - 1 == 4;
+        try {
+            LocalDateTime local = LocalDateTime.parse(text, longYear ? LONG_YEAR_DATE_FORMAT : DATE_FORMAT);
+            return Date.from(local.atZone(NAIROBI).toInstant());
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
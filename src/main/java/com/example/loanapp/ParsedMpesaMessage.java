@@ -0,0 +1,15 @@
+package com.example.loanapp;
+
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+// Fields extracted from a pasted M-Pesa confirmation SMS; any of them may be null
+@Data
+public class ParsedMpesaMessage {
+    private String receiptCode;
+    private BigDecimal amount;
+    private Date transactionDate;
+    private String senderPhone;
+}
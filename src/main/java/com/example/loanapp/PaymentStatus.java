@@ -0,0 +1,33 @@
+package com.example.loanapp;
+
+// Tracks the last known STK Push outcome for a CheckoutRequestID
+public class PaymentStatus {
+    String status; // pending, success, cancelled, failed
+    long timestamp;
+    String resultDesc;
+
+    PaymentStatus(String status, String resultDesc) {
+        this(status, resultDesc, System.currentTimeMillis());
+    }
+
+    PaymentStatus(String status, String resultDesc, long timestamp) {
+        this.status = status;
+        this.resultDesc = resultDesc;
+        this.timestamp = timestamp;
+    }
+
+    // A CheckoutRequestID's outcome never changes once the callback has settled it
+    boolean isTerminal() {
+        return !"pending".equals(status);
+    }
+
+    // Same value the callback writes to LoanApplication.status
+    String toLoanStatus() {
+        return switch (status) {
+            case "success" -> "PAID";
+            case "cancelled" -> "CANCELLED";
+            case "failed" -> "FAILED";
+            default -> "PENDING";
+        };
+    }
+}
@@ -0,0 +1,283 @@
+package com.example.loanapp;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Cluster state kept in the application database. Settled payment statuses are
+ * also held in a local near cache; writes are broadcast with NOTIFY and every other
+ * node drops its cached copy when the LISTEN thread receives it. The same
+ * channel carries invalidations for other node-local caches.
+ * On databases without LISTEN/NOTIFY the near cache is skipped and reads go
+ * straight to the table. Rows older than the retention period are pruned
+ * periodically.
+ */
+public class PostgresClusterState implements ClusterState {
+
+    static final String CHANNEL = "loanapp_cluster_state";
+
+    // Notification payload is nodeId|kind|key
+    private static final String PAYMENT_STATUS = "p";
+    private static final String CACHE_ENTRY = "c";
+
+    private final DataSource dataSource;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final Duration retention;
+
+    private final Map<String, PaymentStatus> nearCache;
+    private final List<Consumer<String>> invalidationListeners = new CopyOnWriteArrayList<>();
+    private boolean postgres;
+    private volatile boolean notificationsEnabled;
+    private volatile boolean running = true;
+    private Thread listenerThread;
+
+    public PostgresClusterState(DataSource dataSource, Duration retention) {
+        this.dataSource = dataSource;
+        this.retention = retention;
+        this.nearCache = Caffeine.newBuilder()
+                .maximumSize(10_000)
+                .expireAfterWrite(retention)
+                .<String, PaymentStatus>build()
+                .asMap();
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+    }
+
+    @PostConstruct
+    public void init() throws SQLException {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS cluster_payment_status ("
+                + "checkout_request_id VARCHAR(255) PRIMARY KEY, "
+                + "status VARCHAR(32) NOT NULL, "
+                + "result_desc VARCHAR(1000), "
+                + "updated_at BIGINT NOT NULL)");
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS cluster_rate_limit ("
+                + "rate_key VARCHAR(255) PRIMARY KEY, "
+                + "window_start BIGINT NOT NULL, "
+                + "hits BIGINT NOT NULL)");
+
+        try (Connection probe = dataSource.getConnection()) {
+            postgres = probe.isWrapperFor(PGConnection.class);
+        }
+        notificationsEnabled = postgres;
+
+        if (notificationsEnabled) {
+            listenerThread = new Thread(this::listen, "cluster-state-listener");
+            listenerThread.setDaemon(true);
+            listenerThread.start();
+        } else {
+            System.out.println("Cluster state: LISTEN/NOTIFY unavailable, near cache disabled");
+        }
+    }
+
+    // Every node runs this; the DELETEs are idempotent
+    @Scheduled(initialDelayString = "${loanapp.cluster-state.prune-interval-ms:3600000}",
+            fixedDelayString = "${loanapp.cluster-state.prune-interval-ms:3600000}")
+    public void pruneExpired() {
+        long cutoff = System.currentTimeMillis() - retention.toMillis();
+        int removed = jdbcTemplate.update("DELETE FROM cluster_payment_status WHERE updated_at < ?", cutoff)
+                + jdbcTemplate.update("DELETE FROM cluster_rate_limit WHERE window_start < ?", cutoff);
+        if (removed > 0) {
+            System.out.println("Cluster state: pruned " + removed + " expired rows");
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (listenerThread != null) {
+            listenerThread.interrupt();
+        }
+    }
+
+    @Override
+    public Optional<PaymentStatus> getPaymentStatus(String checkoutRequestID) {
+        if (notificationsEnabled) {
+            PaymentStatus cached = nearCache.get(checkoutRequestID);
+            if (cached != null) {
+                return Optional.of(cached);
+            }
+        }
+
+        List<PaymentStatus> rows = jdbcTemplate.query(
+                "SELECT status, result_desc, updated_at FROM cluster_payment_status WHERE checkout_request_id = ?",
+                (rs, i) -> new PaymentStatus(rs.getString(1), rs.getString(2), rs.getLong(3)),
+                checkoutRequestID);
+
+        if (rows.isEmpty()) {
+            return Optional.empty();
+        }
+        cacheIfTerminal(checkoutRequestID, rows.get(0));
+        return Optional.of(rows.get(0));
+    }
+
+    @Override
+    public void putPaymentStatus(String checkoutRequestID, PaymentStatus status) {
+        int updated = jdbcTemplate.update(
+                "UPDATE cluster_payment_status SET status = ?, result_desc = ?, updated_at = ? WHERE checkout_request_id = ?",
+                status.status, status.resultDesc, status.timestamp, checkoutRequestID);
+        if (updated == 0) {
+            try {
+                jdbcTemplate.update(
+                        "INSERT INTO cluster_payment_status (checkout_request_id, status, result_desc, updated_at) VALUES (?, ?, ?, ?)",
+                        checkoutRequestID, status.status, status.resultDesc, status.timestamp);
+            } catch (DuplicateKeyException e) {
+                // Another node inserted first; our write is the newer one
+                jdbcTemplate.update(
+                        "UPDATE cluster_payment_status SET status = ?, result_desc = ?, updated_at = ? WHERE checkout_request_id = ?",
+                        status.status, status.resultDesc, status.timestamp, checkoutRequestID);
+            }
+        }
+
+        nearCache.remove(checkoutRequestID);
+        cacheIfTerminal(checkoutRequestID, status);
+        notifyOthers(PAYMENT_STATUS, checkoutRequestID);
+    }
+
+    // Only settled outcomes are cached: they never change, so a read racing another node's
+    // update and NOTIFY cannot leave a stale entry. "pending" is always read from the table.
+    private void cacheIfTerminal(String checkoutRequestID, PaymentStatus status) {
+        if (notificationsEnabled && status.isTerminal()) {
+            nearCache.put(checkoutRequestID, status);
+        }
+    }
+
+    @Override
+    public void removePaymentStatus(String checkoutRequestID) {
+        jdbcTemplate.update("DELETE FROM cluster_payment_status WHERE checkout_request_id = ?", checkoutRequestID);
+        nearCache.remove(checkoutRequestID);
+        notifyOthers(PAYMENT_STATUS, checkoutRequestID);
+    }
+
+    @Override
+    public long incrementRateCounter(String key, long windowMillis) {
+        long windowStart = System.currentTimeMillis() / windowMillis * windowMillis;
+
+        // One statement, so concurrent replicas each get a distinct count.
+        // Counter from the current window: bump it. Older window: restart at 1.
+        if (postgres) {
+            Long hits = jdbcTemplate.queryForObject(
+                    "INSERT INTO cluster_rate_limit (rate_key, window_start, hits) VALUES (?, ?, 1) "
+                            + "ON CONFLICT (rate_key) DO UPDATE SET "
+                            + "hits = CASE WHEN cluster_rate_limit.window_start = EXCLUDED.window_start "
+                            + "THEN cluster_rate_limit.hits + 1 ELSE 1 END, "
+                            + "window_start = EXCLUDED.window_start "
+                            + "RETURNING hits",
+                    Long.class, key, windowStart);
+            return hits != null ? hits : 0;
+        }
+
+        // Without ON CONFLICT ... RETURNING: the UPDATE's row lock is held until the
+        // SELECT in the same transaction has read our own count
+        try {
+            Long hits = transactionTemplate.execute(tx -> {
+                int updated = jdbcTemplate.update(
+                        "UPDATE cluster_rate_limit SET hits = CASE WHEN window_start = ? THEN hits + 1 ELSE 1 END, "
+                                + "window_start = ? WHERE rate_key = ?",
+                        windowStart, windowStart, key);
+                if (updated == 0) {
+                    jdbcTemplate.update(
+                            "INSERT INTO cluster_rate_limit (rate_key, window_start, hits) VALUES (?, ?, 1)",
+                            key, windowStart);
+                    return 1L;
+                }
+                return jdbcTemplate.queryForObject(
+                        "SELECT hits FROM cluster_rate_limit WHERE rate_key = ?", Long.class, key);
+            });
+            return hits != null ? hits : 0;
+        } catch (DuplicateKeyException e) {
+            // Another node inserted the row first; now the UPDATE will find it
+            return incrementRateCounter(key, windowMillis);
+        }
+    }
+
+    @Override
+    public void publishInvalidation(String key) {
+        notifyOthers(CACHE_ENTRY, key);
+    }
+
+    @Override
+    public boolean deliversInvalidations() {
+        return notificationsEnabled;
+    }
+
+    @Override
+    public void onInvalidation(Consumer<String> listener) {
+        invalidationListeners.add(listener);
+    }
+
+    private void notifyOthers(String kind, String key) {
+        if (!notificationsEnabled) {
+            return;
+        }
+        try {
+            jdbcTemplate.queryForList("SELECT pg_notify(?, ?)", CHANNEL, nodeId + "|" + kind + "|" + key);
+        } catch (Exception e) {
+            System.err.println("Cluster state NOTIFY failed: " + e.getMessage());
+        }
+    }
+
+    // Holds one connection for LISTEN; reconnects if it drops
+    private void listen() {
+        while (running) {
+            try (Connection connection = dataSource.getConnection()) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + CHANNEL);
+                }
+                // Anything cached while we were disconnected may be stale
+                nearCache.clear();
+                invalidationListeners.forEach(listener -> listener.accept(null));
+
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications(500);
+                    if (notifications == null) {
+                        continue;
+                    }
+                    for (PGNotification notification : notifications) {
+                        String[] payload = notification.getParameter().split("\\|", 3);
+                        if (payload.length < 3 || payload[0].equals(nodeId)) {
+                            continue;
+                        }
+                        if (PAYMENT_STATUS.equals(payload[1])) {
+                            nearCache.remove(payload[2]);
+                        } else {
+                            invalidationListeners.forEach(listener -> listener.accept(payload[2]));
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                System.err.println("Cluster state listener error: " + e.getMessage());
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.loanapp;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RestTemplate;
+import tools.jackson.databind.json.JsonMapper;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Primes the paths the first STK pushes hit: the connection pool, Jackson
+ * serializers, repository queries and the TLS connection to Safaricom.
+ * Runs as an ApplicationRunner, so readiness (/actuator/health/readiness)
+ * only switches to ACCEPTING_TRAFFIC once it has finished. Each step is
+ * best effort; a failure is logged and never blocks startup.
+ */
+@Component
+@ConditionalOnProperty(name = "loanapp.warmup.enabled", havingValue = "true", matchIfMissing = true)
+public class StartupWarmup implements ApplicationRunner {
+
+    private static final String WARMUP_ID = "WARMUP-NOT-A-LOAN";
+
+    private final DataSource dataSource;
+    private final JsonMapper jsonMapper;
+    private final LoanApplicationRepository repository;
+    private final ArchivedLoanApplicationRepository archiveRepository;
+
+    @Value("${loanapp.warmup.connections:5}")
+    private int connections;
+    @Value("${loanapp.warmup.iterations:200}")
+    private int iterations;
+    // Off in tests so they never call the production Safaricom endpoint
+    @Value("${loanapp.warmup.outbound-enabled:true}")
+    private boolean outboundEnabled;
+    @Value("${loanapp.warmup.outbound-url:https://api.safaricom.co.ke/oauth/v1/generate?grant_type=client_credentials}")
+    private String outboundUrl;
+
+    public StartupWarmup(DataSource dataSource, JsonMapper jsonMapper,
+                         LoanApplicationRepository repository,
+                         ArchivedLoanApplicationRepository archiveRepository) {
+        this.dataSource = dataSource;
+        this.jsonMapper = jsonMapper;
+        this.repository = repository;
+        this.archiveRepository = archiveRepository;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        long start = System.currentTimeMillis();
+
+        // The TLS handshake is network-bound, so overlap it with the local steps
+        CompletableFuture<Void> outbound = CompletableFuture.runAsync(() -> step("outbound HTTP", this::warmOutbound));
+
+        step("connection pool", this::warmConnectionPool);
+        step("repository queries", this::warmRepositories);
+        step("Jackson", this::warmJackson);
+        step("M-Pesa message parser", this::warmParser);
+        outbound.join();
+
+        System.out.println("Startup warm-up finished in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private void step(String name, Runnable task) {
+        long start = System.currentTimeMillis();
+        try {
+            task.run();
+            System.out.println("Warm-up " + name + ": " + (System.currentTimeMillis() - start) + " ms");
+        } catch (Exception e) {
+            System.err.println("Warm-up " + name + " failed: " + e.getMessage());
+        }
+    }
+
+    // Open several connections at once so Hikari grows the pool before real traffic does
+    private void warmConnectionPool() {
+        List<Connection> held = new ArrayList<>();
+        try {
+            for (int i = 0; i < connections; i++) {
+                Connection connection = dataSource.getConnection();
+                held.add(connection);
+                connection.isValid(2);
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        } finally {
+            for (Connection connection : held) {
+                try {
+                    connection.close();
+                } catch (Exception ignored) {
+                    // returned to the pool either way
+                }
+            }
+        }
+    }
+
+    // Prepares Hibernate's query plans for the hot-path finders
+    private void warmRepositories() {
+        for (int i = 0; i < iterations / 10 + 1; i++) {
+            repository.findByTrackingId(WARMUP_ID);
+            repository.findByCheckoutRequestID(WARMUP_ID);
+            repository.existsByMpesaReceiptCodeAndIdNot(WARMUP_ID, -1L);
+            archiveRepository.findByTrackingId(WARMUP_ID);
+            archiveRepository.findByCheckoutRequestID(WARMUP_ID);
+        }
+    }
+
+    // Same mapper Spring MVC uses for request and response bodies
+    private void warmJackson() {
+        LoanApplication loan = new LoanApplication();
+        loan.setTrackingId(WARMUP_ID);
+        loan.setStatus("PENDING");
+        loan.setApplicationDate(new Date());
+
+        StkPushRequest request = new StkPushRequest();
+        request.setTrackingId(WARMUP_ID);
+        request.setPhone("254700000000");
+
+        for (int i = 0; i < iterations; i++) {
+            jsonMapper.readValue(jsonMapper.writeValueAsString(loan), LoanApplication.class);
+            jsonMapper.readValue(jsonMapper.writeValueAsString(request), StkPushRequest.class);
+        }
+    }
+
+    private void warmParser() {
+        String sample = "QGH7XK2L9P Confirmed. Ksh150.00 sent to KOPESHA 0712345678 on 12/10/24 at 3:45 PM.";
+        for (int i = 0; i < iterations; i++) {
+            MpesaMessageParser.parse(sample);
+        }
+    }
+
+    // An unauthenticated request is enough to complete the TLS handshake and leave a keep-alive connection
+    private void warmOutbound() {
+        if (!outboundEnabled || outboundUrl.isBlank()) {
+            System.out.println("Warm-up outbound HTTP skipped: disabled");
+            return;
+        }
+        if (EnvConfig.dotenv.get("MPESA_CONSUMER_KEY") == null) {
+            System.out.println("Warm-up outbound HTTP skipped: no M-Pesa credentials configured");
+            return;
+        }
+
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(3000);
+        requestFactory.setReadTimeout(3000);
+        RestTemplate restTemplate = new RestTemplate(requestFactory);
+        try {
+            restTemplate.getForEntity(outboundUrl, String.class);
+        } catch (HttpStatusCodeException e) {
+            // 400/401 without credentials is expected; the connection is what we wanted
+        }
+    }
+}
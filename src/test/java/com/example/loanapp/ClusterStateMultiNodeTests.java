@@ -0,0 +1,160 @@
+package com.example.loanapp;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Boots two application contexts against one shared database, the way two
+ * replicas behind the load balancer would run.
+ */
+class ClusterStateMultiNodeTests {
+
+    private ConfigurableApplicationContext nodeA;
+    private ConfigurableApplicationContext nodeB;
+
+    @BeforeEach
+    void startNodes() {
+        nodeA = startNode();
+        nodeB = startNode();
+    }
+
+    @AfterEach
+    void stopNodes() {
+        nodeA.close();
+        nodeB.close();
+    }
+
+    private ConfigurableApplicationContext startNode() {
+        return new SpringApplicationBuilder(LoanAppApplication.class)
+                .web(WebApplicationType.NONE)
+                .run(
+                        "--spring.datasource.url=jdbc:h2:mem:cluster;DB_CLOSE_DELAY=-1",
+                        "--spring.datasource.username=sa",
+                        "--spring.datasource.password=",
+                        "--spring.datasource.driver-class-name=org.h2.Driver",
+                        "--spring.jpa.show-sql=false",
+                        "--loanapp.warmup.outbound-enabled=false",
+                        "--loanapp.cluster-state=postgres");
+    }
+
+    @Test
+    void paymentStatusWrittenOnOneNodeIsVisibleOnTheOther() {
+        ClusterState a = nodeA.getBean(ClusterState.class);
+        ClusterState b = nodeB.getBean(ClusterState.class);
+
+        a.putPaymentStatus("ws_CO_status", new PaymentStatus("success", "Processed"));
+        assertEquals("PAID", b.getPaymentStatus("ws_CO_status").orElseThrow().toLoanStatus());
+
+        b.removePaymentStatus("ws_CO_status");
+        assertTrue(a.getPaymentStatus("ws_CO_status").isEmpty());
+    }
+
+    @Test
+    void callbackRetryOnAnotherNodeIsIgnored() {
+        LoanApplication loan = new LoanApplication();
+        loan.setTrackingId("LON-C100000L1000000");
+        loan.setStatus("PENDING");
+        loan.setCheckoutRequestID("ws_CO_callback");
+        loan.setApplicationDate(new Date());
+        nodeA.getBean(LoanApplicationRepository.class).save(loan);
+
+        Map<String, Object> callback = Map.of("Body", Map.of("stkCallback", Map.of(
+                "ResultCode", 0,
+                "ResultDesc", "The service request is processed successfully.",
+                "CheckoutRequestID", "ws_CO_callback")));
+
+        ResponseEntity<Map<String, Object>> first =
+                nodeA.getBean(LoanApplicationController.class).mpesaCallback(callback);
+        ResponseEntity<Map<String, Object>> retry =
+                nodeB.getBean(LoanApplicationController.class).mpesaCallback(callback);
+
+        assertEquals("Callback processed", first.getBody().get("message"));
+        assertEquals("Callback already processed", retry.getBody().get("message"));
+        assertEquals("PAID", nodeB.getBean(LoanApplicationRepository.class)
+                .findByCheckoutRequestID("ws_CO_callback").orElseThrow().getStatus());
+
+        Map<?, ?> status = (Map<?, ?>) nodeB.getBean(LoanApplicationController.class)
+                .getPaymentStatus("ws_CO_callback").getBody();
+        assertEquals("PAID", status.get("status"));
+    }
+
+    @Test
+    void rateCounterIsSharedBetweenNodes() {
+        ClusterState a = nodeA.getBean(ClusterState.class);
+        ClusterState b = nodeB.getBean(ClusterState.class);
+
+        assertEquals(1, a.incrementRateCounter("stk:254700000000", 60_000));
+        assertEquals(2, b.incrementRateCounter("stk:254700000000", 60_000));
+        assertEquals(3, a.incrementRateCounter("stk:254700000000", 60_000));
+    }
+
+    @Test
+    void concurrentIncrementsFromBothNodesGetDistinctCounts() throws Exception {
+        List<ClusterState> nodes = List.of(nodeA.getBean(ClusterState.class), nodeB.getBean(ClusterState.class));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Long>> results = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                ClusterState node = nodes.get(i % 2);
+                results.add(executor.submit(() -> node.incrementRateCounter("loan-archival-race", 60_000)));
+            }
+
+            Set<Long> counts = new HashSet<>();
+            for (Future<Long> result : results) {
+                counts.add(result.get());
+            }
+            assertEquals(100, counts.size());
+            assertTrue(counts.contains(1L));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void pruneDropsExpiredRows() {
+        PostgresClusterState a = (PostgresClusterState) nodeA.getBean(ClusterState.class);
+        JdbcTemplate jdbcTemplate = nodeA.getBean(JdbcTemplate.class);
+        jdbcTemplate.update("INSERT INTO cluster_payment_status (checkout_request_id, status, result_desc, updated_at) "
+                + "VALUES (?, 'success', 'Processed', 0)", "ws_CO_expired");
+        assertTrue(a.getPaymentStatus("ws_CO_expired").isPresent());
+
+        a.pruneExpired();
+
+        assertTrue(a.getPaymentStatus("ws_CO_expired").isEmpty());
+    }
+
+    @Test
+    void pendingStatusFallsThroughToTheLoan() {
+        LoanApplication loan = new LoanApplication();
+        loan.setTrackingId("LON-C200000L2000000");
+        loan.setStatus("PAID");
+        loan.setCheckoutRequestID("ws_CO_pending_local");
+        loan.setApplicationDate(new Date());
+        nodeA.getBean(LoanApplicationRepository.class).save(loan);
+
+        // Left behind by /stk-push on a node the callback never reached
+        nodeA.getBean(ClusterState.class).putPaymentStatus("ws_CO_pending_local", new PaymentStatus("pending", "STK Push sent"));
+
+        Map<?, ?> status = (Map<?, ?>) nodeA.getBean(LoanApplicationController.class)
+                .getPaymentStatus("ws_CO_pending_local").getBody();
+        assertEquals("PAID", status.get("status"));
+    }
+}
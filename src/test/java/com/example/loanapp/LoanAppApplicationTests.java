@@ -3,7 +3,7 @@ package com.example.loanapp;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
-@SpringBootTest
+@SpringBootTest(properties = "loanapp.warmup.outbound-enabled=false")
 class LoanAppApplicationTests {
 
 	@Test
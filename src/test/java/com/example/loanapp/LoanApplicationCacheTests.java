@@ -0,0 +1,164 @@
+package com.example.loanapp;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.OptimisticLockingFailureException;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:loancache;DB_CLOSE_DELAY=-1",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.jpa.show-sql=false",
+        "loanapp.warmup.outbound-enabled=false",
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "loanapp.loan-cache.enabled=true"
+})
+class LoanApplicationCacheTests {
+
+    private static final int LOOKUPS = 5_000;
+
+    @Autowired
+    private LoanApplicationController controller;
+    @Autowired
+    private LoanApplicationRepository repository;
+    @Autowired
+    private LoanArchiveService loanArchive;
+    @Autowired
+    private LoanApplicationCache loanCache;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private LoanApplication newLoan() {
+        LoanApplication loan = new LoanApplication();
+        loan.setName("Test");
+        return controller.applyLoan(loan);
+    }
+
+    // Benchmark: prints latency and query count for the same lookups with and without the cache
+    @Test
+    void cacheRemovesRepeatedLookupQueries() {
+        String trackingId = newLoan().getTrackingId();
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+        statistics.clear();
+        long start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            assertTrue(repository.findByTrackingId(trackingId).isPresent());
+        }
+        long uncachedNanos = System.nanoTime() - start;
+        long uncachedQueries = statistics.getPrepareStatementCount();
+
+        statistics.clear();
+        start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            assertTrue(loanCache.findByTrackingId(trackingId, loanArchive::findByTrackingId).isPresent());
+        }
+        long cachedNanos = System.nanoTime() - start;
+        long cachedQueries = statistics.getPrepareStatementCount();
+
+        System.out.printf("%d lookups: uncached %d ms / %d queries, cached %d ms / %d queries%n", LOOKUPS,
+                TimeUnit.NANOSECONDS.toMillis(uncachedNanos), uncachedQueries,
+                TimeUnit.NANOSECONDS.toMillis(cachedNanos), cachedQueries);
+
+        assertEquals(LOOKUPS, uncachedQueries);
+        assertEquals(0, cachedQueries); // applyLoan already wrote it through
+    }
+
+    @Test
+    void saveWritesThroughAndDeleteEvicts() {
+        String trackingId = newLoan().getTrackingId();
+
+        controller.updateLoanOffer(Map.of("trackingId", trackingId, "verificationFee", 150));
+        assertEquals(150, loanCache.findByTrackingId(trackingId, id -> {
+            throw new AssertionError("expected a cache hit");
+        }).orElseThrow().getVerificationFee());
+
+        controller.deleteLoan(trackingId);
+        assertTrue(loanCache.findByTrackingId(trackingId, loanArchive::findByTrackingId).isEmpty());
+    }
+
+    @Test
+    void callersGetTheirOwnCopy() {
+        String trackingId = newLoan().getTrackingId();
+
+        LoanApplication first = loanCache.findByTrackingId(trackingId, loanArchive::findByTrackingId).orElseThrow();
+        first.setStatus("CHANGED_WITHOUT_SAVE");
+
+        LoanApplication second = loanCache.findByTrackingId(trackingId, loanArchive::findByTrackingId).orElseThrow();
+        assertEquals("PENDING", second.getStatus());
+    }
+
+    @Test
+    void staleSnapshotFailsToSaveAndIsEvicted() {
+        String trackingId = newLoan().getTrackingId();
+
+        LoanApplication current = loanCache.findByTrackingId(trackingId, loanArchive::findByTrackingId).orElseThrow();
+        LoanApplication stale = loanCache.findByTrackingId(trackingId, loanArchive::findByTrackingId).orElseThrow();
+
+        current.setStatus("PAID");
+        loanCache.save(current);
+
+        stale.setVerificationFee(99);
+        assertThrows(OptimisticLockingFailureException.class, () -> loanCache.save(stale));
+
+        LoanApplication reloaded = loanCache.findByTrackingId(trackingId, loanArchive::findByTrackingId).orElseThrow();
+        assertEquals("PAID", reloaded.getStatus());
+        assertEquals(0, reloaded.getVerificationFee());
+    }
+
+    @Test
+    void loadRacingAnInvalidationIsNotCached() {
+        String trackingId = newLoan().getTrackingId();
+        loanCache.evict(trackingId, null);
+
+        // Another request saves (and invalidates) while this lookup is still reading the old row
+        LoanApplication loaded = loanCache.findByTrackingId(trackingId, id -> {
+            Optional<LoanApplication> old = loanArchive.findByTrackingId(id);
+            LoanApplication other = loanArchive.findByTrackingId(id).orElseThrow();
+            other.setStatus("PAID");
+            repository.save(other);
+            loanCache.evict(other);
+            return old;
+        }).orElseThrow();
+        assertEquals("PENDING", loaded.getStatus());
+
+        assertEquals("PAID", loanCache.findByTrackingId(trackingId, loanArchive::findByTrackingId)
+                .orElseThrow().getStatus());
+    }
+
+    @Test
+    void slowLoadDoesNotReplaceANewerSnapshot() {
+        String trackingId = newLoan().getTrackingId();
+        loanCache.evict(trackingId, null);
+
+        loanCache.findByTrackingId(trackingId, id -> {
+            Optional<LoanApplication> old = loanArchive.findByTrackingId(id);
+            LoanApplication other = loanArchive.findByTrackingId(id).orElseThrow();
+            other.setStatus("PAID");
+            loanCache.save(other);
+            return old;
+        });
+
+        assertEquals("PAID", loanCache.findByTrackingId(trackingId, id -> {
+            throw new AssertionError("expected a cache hit");
+        }).orElseThrow().getStatus());
+    }
+
+    @Test
+    void autoModeStaysOffWhenInvalidationsCannotBeDelivered() {
+        assertFalse(new InMemoryClusterState(Duration.ofHours(1)).deliversInvalidations());
+        assertTrue(loanCache.isEnabled()); // forced on for this single-node test
+    }
+}
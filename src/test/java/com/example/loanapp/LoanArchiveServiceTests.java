@@ -0,0 +1,158 @@
+package com.example.loanapp;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Seeds old settled loans and archives them while status polls keep running.
+ * Defaults to 20k rows; run with -Darchival.test.rows=1000000 for the full-size check.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:archive;DB_CLOSE_DELAY=-1",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.jpa.show-sql=false",
+        "loanapp.warmup.outbound-enabled=false",
+        "loanapp.archive.after-days=30",
+        "loanapp.archive.batch-size=1000",
+        "loanapp.archive.pause-ms=5"
+})
+class LoanArchiveServiceTests {
+
+    private static final int ROWS = Integer.getInteger("archival.test.rows", 20_000);
+
+    @Autowired
+    private LoanArchiveService loanArchive;
+    @Autowired
+    private LoanApplicationController controller;
+    @Autowired
+    private LoanApplicationRepository repository;
+    @Autowired
+    private ArchivedLoanApplicationRepository archiveRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private ClusterState clusterState;
+
+    @Test
+    void archivesSettledLoansWhileLookupsKeepWorking() throws Exception {
+        Timestamp old = new Timestamp(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(60));
+        Timestamp recent = new Timestamp(System.currentTimeMillis());
+        String message = "QWE123ABC Confirmed. Ksh150.00 sent to KOPESHA ".repeat(10);
+
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            String status = LoanArchiveService.SETTLED_STATUSES.get(i % 3);
+            rows.add(new Object[]{"LON-T" + i, "ws_CO_" + i, status, old, message});
+            if (rows.size() == 10_000 || i == ROWS - 1) {
+                jdbcTemplate.batchUpdate("INSERT INTO loan_application "
+                        + "(tracking_id, checkout_requestid, status, application_date, mpesa_message, loan_amount, verification_fee) "
+                        + "VALUES (?, ?, ?, ?, ?, 0, 0)", rows);
+                rows.clear();
+            }
+        }
+        // Must stay in the hot table: still pending, or settled too recently
+        jdbcTemplate.update("INSERT INTO loan_application (tracking_id, status, application_date, loan_amount, verification_fee) "
+                + "VALUES ('LON-PENDING', 'PENDING', ?, 0, 0)", old);
+        jdbcTemplate.update("INSERT INTO loan_application (tracking_id, status, application_date, loan_amount, verification_fee) "
+                + "VALUES ('LON-RECENT', 'PAID', ?, 0, 0)", recent);
+
+        CompletableFuture<Integer> archival = CompletableFuture.supplyAsync(loanArchive::archiveSettledLoans);
+
+        long lookups = 0;
+        long slowestNanos = 0;
+        while (!archival.isDone()) {
+            int i = ThreadLocalRandom.current().nextInt(ROWS);
+            long start = System.nanoTime();
+            Map<?, ?> body = (Map<?, ?>) controller.getPaymentStatus("ws_CO_" + i).getBody();
+            slowestNanos = Math.max(slowestNanos, System.nanoTime() - start);
+            lookups++;
+
+            assertEquals(LoanArchiveService.SETTLED_STATUSES.get(i % 3), body.get("status"));
+        }
+
+        assertEquals(ROWS, archival.get());
+        System.out.println("Archived " + ROWS + " rows; " + lookups + " lookups, slowest "
+                + TimeUnit.NANOSECONDS.toMillis(slowestNanos) + " ms");
+
+        assertEquals(ROWS, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM loan_application_archive WHERE tracking_id LIKE 'LON-T%'", Integer.class));
+        assertEquals(0, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM loan_application WHERE tracking_id LIKE 'LON-T%'", Integer.class));
+        ArchivedLoanApplication sample = archiveRepository.findByTrackingId("LON-T0").orElseThrow();
+        assertEquals(message, sample.getMpesaMessage());
+        assertEquals("ws_CO_0", sample.getCheckoutRequestID());
+        assertNotNull(sample.getArchivedDate());
+
+        assertTrue(repository.findByTrackingId("LON-PENDING").isPresent());
+        assertTrue(repository.findByTrackingId("LON-RECENT").isPresent());
+    }
+
+    @Test
+    void rowThatNoLongerQualifiesStaysInHotTable() {
+        Timestamp old = new Timestamp(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(60));
+        jdbcTemplate.update("INSERT INTO loan_application (tracking_id, status, application_date, loan_amount, verification_fee) "
+                + "VALUES ('LON-REOPENED', 'PENDING', ?, 0, 0)", old);
+        Long id = repository.findByTrackingId("LON-REOPENED").orElseThrow().getId();
+        Date cutoff = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(30));
+
+        // Selected while it was PAID, then a new STK push moved it back to PENDING
+        int deleted = transactionTemplate.execute(tx -> {
+            archiveRepository.copyFromHotTable(List.of(id), LoanArchiveService.SETTLED_STATUSES, cutoff, new Date());
+            return repository.deleteArchived(List.of(id), LoanArchiveService.SETTLED_STATUSES, cutoff);
+        });
+
+        assertEquals(0, deleted);
+        assertTrue(repository.findById(id).isPresent());
+        assertTrue(archiveRepository.findById(id).isEmpty());
+    }
+
+    @Test
+    void deletingArchivedLoanClearsItsPaymentStatus() {
+        ArchivedLoanApplication archived = new ArchivedLoanApplication();
+        archived.setId(-2L);
+        archived.setTrackingId("LON-DELETE");
+        archived.setCheckoutRequestID("ws_CO_delete");
+        archived.setStatus("PAID");
+        archiveRepository.save(archived);
+        clusterState.putPaymentStatus("ws_CO_delete", new PaymentStatus("success", "Processed"));
+
+        controller.deleteLoan("LON-DELETE");
+
+        assertTrue(archiveRepository.findByTrackingId("LON-DELETE").isEmpty());
+        assertTrue(clusterState.getPaymentStatus("ws_CO_delete").isEmpty());
+    }
+
+    @Test
+    void trackingIdLookupRestoresArchivedLoan() {
+        ArchivedLoanApplication archived = new ArchivedLoanApplication();
+        archived.setId(-1L);
+        archived.setTrackingId("LON-RESTORE");
+        archived.setStatus("FAILED");
+        archiveRepository.save(archived);
+
+        LoanApplication loan = loanArchive.findByTrackingId("LON-RESTORE").orElseThrow();
+
+        assertNotNull(loan.getId());
+        assertEquals("FAILED", loan.getStatus());
+        assertTrue(archiveRepository.findByTrackingId("LON-RESTORE").isEmpty());
+        assertTrue(repository.findByTrackingId("LON-RESTORE").isPresent());
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.loanapp;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MpesaMessageParserTests {
+
+    private static List<String[]> corpus() throws IOException {
+        List<String[]> entries = new ArrayList<>();
+        try (InputStream in = MpesaMessageParserTests.class.getResourceAsStream("/mpesa-messages.txt")) {
+            for (String line : new String(in.readAllBytes(), StandardCharsets.UTF_8).split("\n")) {
+                if (line.isBlank() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\|", 5);
+                for (int i = 0; i < fields.length; i++) {
+                    fields[i] = fields[i].trim();
+                }
+                entries.add(fields);
+            }
+        }
+        return entries;
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    @Test
+    void parsesSampleCorpus() throws Exception {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+        format.setTimeZone(TimeZone.getTimeZone("Africa/Nairobi"));
+
+        for (String[] entry : corpus()) {
+            ParsedMpesaMessage parsed = MpesaMessageParser.parse(entry[4]);
+            String context = "message: " + entry[4];
+
+            assertEquals(emptyToNull(entry[0]), parsed.getReceiptCode(), context);
+            assertEquals(entry[1].isEmpty() ? null : new BigDecimal(entry[1]), parsed.getAmount(), context);
+            assertEquals(entry[2].isEmpty() ? null : format.parse(entry[2]), parsed.getTransactionDate(), context);
+            assertEquals(emptyToNull(entry[3]), parsed.getSenderPhone(), context);
+        }
+    }
+
+    @Test
+    void nullMessageParsesToEmptyResult() {
+        ParsedMpesaMessage parsed = MpesaMessageParser.parse(null);
+        assertNull(parsed.getReceiptCode());
+        assertNull(parsed.getAmount());
+    }
+
+    // Throughput check, not a strict gate: prints messages/second over the corpus
+    @Test
+    void parserThroughput() throws Exception {
+        List<String> messages = corpus().stream().map(e -> e[4]).toList();
+        for (int i = 0; i < 20_000; i++) {
+            MpesaMessageParser.parse(messages.get(i % messages.size()));
+        }
+
+        int iterations = 200_000;
+        long start = System.nanoTime();
+        int parsedReceipts = 0;
+        for (int i = 0; i < iterations; i++) {
+            if (MpesaMessageParser.parse(messages.get(i % messages.size())).getReceiptCode() != null) {
+                parsedReceipts++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("Parsed %d messages in %d ms (%.0f msg/s)%n",
+                iterations, elapsed / 1_000_000, iterations / (elapsed / 1e9));
+        assertTrue(parsedReceipts > 0);
+    }
+}